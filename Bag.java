@@ -113,7 +113,7 @@ public class Bag<Item> implements Iterable<Item> {
     public boolean contains(Item item) {
       Node<Item> current = first;
       while (current != null) {
-        if (current.item == item) return true;
+        if (current.item == null ? item == null : current.item.equals(item)) return true;
         current = current.next;
       }
       return false;
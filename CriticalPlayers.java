@@ -0,0 +1,246 @@
+import java.util.Random;
+
+/*
+ * Finds the players that hold chains of games together
+ *
+ * An articulation point is a player whose removal disconnects other players from
+ * the rest of their component, and a bridge is a pair of players whose games are the
+ * only link between two parts of the graph. Both are found with Tarjan's depth-first
+ * search, run with an explicit stack so deep chains cannot overflow the call stack.
+ * The search starts from the given root, normally Paul Morphy, so separated(v) is the
+ * number of players whose every chain to Morphy passes through v. Players outside the
+ * root's component have no chain to cut, so separated is 0 for them, while their
+ * articulation points and bridges are still reported.
+ *
+ * Betweenness centrality, the number of shortest paths between other players passing
+ * through a player (split evenly between equally short paths), is
+ * estimated with Brandes' algorithm from a random sample of sources.
+ *
+ * Both rely on OffHeapGraph holding each pairing once however many games were played:
+ * a repeated pairing would hide bridges and weight the path counts by games.
+ *
+ * Time and memory are linear in the size of the graph, plus O(V + E) per sampled source.
+ */
+public class CriticalPlayers {
+  private final OffHeapGraph G;
+
+  private boolean[] articulation; // articulation[v] = whether v is an articulation point
+  private int[] separated; // players cut off from the root when v is removed
+  private int[] bridgeFrom; // endpoints of the bridges, bridgeFrom[i] is the parent side
+  private int[] bridgeTo;
+  private int bridges; // the number of bridges
+  private int articulationPoints; // the number of articulation points
+
+  private double[] betweenness; // estimated betweenness of every player
+  private int samples; // the number of sources used for the estimate
+
+  public CriticalPlayers(OffHeapGraph G, int root, int samples, long seed) {
+    if (root < 0 || (root >= G.V() && G.V() > 0)) {
+      throw new IllegalArgumentException("vertex " + root + " out of bounds");
+    }
+    if (samples < 0) {
+      throw new IllegalArgumentException("samples must be non-negative");
+    }
+    this.G = G;
+
+    int V = G.V();
+    articulation = new boolean[V];
+    separated = new int[V];
+    bridgeFrom = new int[Math.max(V - 1, 0)];
+    bridgeTo = new int[Math.max(V - 1, 0)];
+
+    int[] disc = new int[V]; // discovery time, 0 if not yet visited
+    int[] low = new int[V]; // lowest discovery time reachable through the subtree
+    int[] parent = new int[V];
+    int[] next = new int[V]; // position of the next neighbour to explore
+    int[] size = new int[V]; // the number of players in the subtree
+    int[] stack = new int[V];
+    int time = 0;
+
+    for (int i = 0; i < V; i++) {
+      int r = (root + i) % V; // the root first, then the other components
+      if (disc[r] != 0) continue;
+      boolean rooted = r == root; // whether this is the root's component
+
+      int top = 0;
+      int children = 0;
+      int largest = 0; // the largest subtree of the root
+      stack[top++] = r;
+      disc[r] = low[r] = ++time;
+      parent[r] = -1;
+      next[r] = G.first(r);
+      size[r] = 1;
+
+      while (top > 0) {
+        int v = stack[top - 1];
+        if (next[v] < G.first(v + 1)) {
+          int w = G.target(next[v]++);
+          if (disc[w] == 0) {
+            disc[w] = low[w] = ++time;
+            parent[w] = v;
+            next[w] = G.first(w);
+            size[w] = 1;
+            stack[top++] = w;
+            if (v == r) children++;
+          } else if (w != parent[v]) {
+            low[v] = Math.min(low[v], disc[w]);
+          }
+        } else {
+          top--;
+          int p = parent[v];
+          if (p == -1) continue;
+          low[p] = Math.min(low[p], low[v]);
+          size[p] += size[v];
+          if (low[v] > disc[p]) {
+            bridgeFrom[bridges] = p;
+            bridgeTo[bridges] = v;
+            bridges++;
+          }
+          if (p == r) {
+            largest = Math.max(largest, size[v]);
+          } else if (low[v] >= disc[p]) {
+            if (rooted) separated[p] += size[v];
+            articulation[p] = true;
+          }
+        }
+      }
+
+      // the root separates its subtrees only if it has more than one, and then all but
+      // the largest of them count as cut off
+      if (children > 1) {
+        articulation[r] = true;
+        if (rooted) separated[r] = size[r] - 1 - largest;
+      }
+    }
+    for (int v = 0; v < V; v++) {
+      if (articulation[v]) articulationPoints++;
+    }
+
+    betweenness = new double[V];
+    if (samples > 0 && V > 0) estimateBetweenness(Math.min(samples, V), seed);
+  }
+
+  /*
+   * Brandes' algorithm from the given number of distinct random sources
+   * Predecessors are found again from the distances instead of being stored in lists
+   */
+  private void estimateBetweenness(int k, long seed) {
+    int V = G.V();
+    int[] sources = new int[V];
+    for (int v = 0; v < V; v++) sources[v] = v;
+    Random random = new Random(seed);
+    for (int i = 0; i < k; i++) { // partial Fisher-Yates shuffle
+      int j = i + random.nextInt(V - i);
+      int t = sources[i];
+      sources[i] = sources[j];
+      sources[j] = t;
+    }
+
+    int[] dist = new int[V];
+    double[] sigma = new double[V]; // the number of shortest paths from the source
+    double[] delta = new double[V]; // the dependency of the source on each player
+    int[] order = new int[V]; // players in order of distance
+    for (int v = 0; v < V; v++) dist[v] = -1;
+
+    for (int i = 0; i < k; i++) {
+      int s = sources[i];
+      int head = 0, tail = 0;
+      dist[s] = 0;
+      sigma[s] = 1;
+      order[tail++] = s;
+      while (head < tail) {
+        int v = order[head++];
+        for (int e = G.first(v); e < G.first(v + 1); e++) {
+          int w = G.target(e);
+          if (dist[w] == -1) {
+            dist[w] = dist[v] + 1;
+            order[tail++] = w;
+          }
+          if (dist[w] == dist[v] + 1) sigma[w] += sigma[v];
+        }
+      }
+
+      for (int j = tail - 1; j > 0; j--) {
+        int w = order[j];
+        for (int e = G.first(w); e < G.first(w + 1); e++) {
+          int v = G.target(e);
+          if (dist[v] == dist[w] - 1) delta[v] += sigma[v] / sigma[w] * (1 + delta[w]);
+        }
+        betweenness[w] += delta[w];
+      }
+
+      for (int j = 0; j < tail; j++) {
+        int v = order[j];
+        dist[v] = -1;
+        sigma[v] = 0;
+        delta[v] = 0;
+      }
+    }
+
+    // scale up to all sources; every pair was counted from both ends
+    double scale = (double) V / k / 2;
+    for (int v = 0; v < V; v++) betweenness[v] *= scale;
+    samples = k;
+  }
+
+  private void validateVertex(int v) {
+    if (v < 0 || v >= G.V()) {
+      throw new IllegalArgumentException("vertex " + v + " out of bounds");
+    }
+  }
+
+  public boolean isArticulation(int v) {
+    validateVertex(v);
+    return articulation[v];
+  }
+
+  /*
+   * Returns the number of players that lose every chain to the root when v is removed
+   * For the root itself, the players outside the largest remaining part are counted.
+   * Returns 0 for players not connected to the root.
+   */
+  public int separated(int v) {
+    validateVertex(v);
+    return separated[v];
+  }
+
+  /*
+   * Returns the estimated number of shortest paths between pairs of players passing
+   * through v, or 0 if no sources were sampled
+   */
+  public double betweenness(int v) {
+    validateVertex(v);
+    return betweenness[v];
+  }
+
+  public Iterable<Integer> articulationPoints() {
+    Queue<Integer> points = new Queue<>();
+    for (int v = 0; v < articulation.length; v++) {
+      if (articulation[v]) points.enqueue(v);
+    }
+    return points;
+  }
+
+  /*
+   * Returns the bridges as {v, w} pairs, v being the player closer to the root
+   */
+  public Iterable<int[]> bridges() {
+    Queue<int[]> edges = new Queue<>();
+    for (int i = 0; i < bridges; i++) {
+      edges.enqueue(new int[] { bridgeFrom[i], bridgeTo[i] });
+    }
+    return edges;
+  }
+
+  public int articulationCount() {
+    return articulationPoints;
+  }
+
+  public int bridgeCount() {
+    return bridges;
+  }
+
+  public int samples() {
+    return samples;
+  }
+}
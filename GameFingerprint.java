@@ -0,0 +1,130 @@
+/*
+ * Incremental 64-bit fingerprint of a PGN game, used to recognise the same game in
+ * overlapping databases
+ *
+ * The fingerprint covers the White, Black, Date and Result tags and the moves of the
+ * main line. Comments, variations, move numbers, annotation glyphs and check marks are
+ * skipped, and player names are normalized, since databases differ in exactly those.
+ * A game without moves, such as a forfeit, has too little to tell it apart, so its
+ * Event and Round tags are covered as well.
+ * Move text is fed one line at a time, so a game is never held in memory as a whole.
+ */
+public class GameFingerprint {
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private String white, black, date, result, event, round;
+  private long moves; // FNV-1a hash of the main line moves
+  private StringBuilder token; // the move being read
+  private boolean comment; // inside a {...} comment
+  private int depth; // nesting depth of (...) variations
+
+  public GameFingerprint() {
+    token = new StringBuilder();
+    reset();
+  }
+
+  /*
+   * Starts the fingerprint of a new game
+   */
+  public void reset() {
+    white = black = date = result = event = round = "";
+    moves = FNV_OFFSET;
+    token.setLength(0);
+    comment = false;
+    depth = 0;
+  }
+
+  public void tag(String name, String value) {
+    if (name.equals("White")) white = PlayerNames.normalize(value);
+    else if (name.equals("Black")) black = PlayerNames.normalize(value);
+    else if (name.equals("Date")) date = value;
+    else if (name.equals("Result")) result = value;
+    else if (name.equals("Event")) event = value;
+    else if (name.equals("Round")) round = value;
+  }
+
+  /*
+   * Returns whether the parser is inside a comment that continues on the next line
+   */
+  public boolean inComment() {
+    return comment;
+  }
+
+  /*
+   * Adds one line of move text
+   */
+  public void moves(String line) {
+    if (!comment && line.startsWith("%")) return; // escaped line
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (comment) {
+        if (c == '}') comment = false;
+      } else if (c == '{') {
+        flush();
+        comment = true;
+      } else if (c == ';') {
+        break; // the rest of the line is a comment
+      } else if (c == '(') {
+        flush();
+        depth++;
+      } else if (c == ')') {
+        flush();
+        if (depth > 0) depth--;
+      } else if (depth > 0) {
+        continue;
+      } else if (Character.isWhitespace(c) || c == '.') {
+        flush();
+      } else if (c != '!' && c != '?' && c != '+' && c != '#') {
+        token.append(c);
+      }
+    }
+    flush();
+  }
+
+  // hashes the current token if it is a move
+  private void flush() {
+    int n = token.length();
+    if (n == 0) return;
+
+    boolean number = true;
+    for (int i = 0; i < n && number; i++) {
+      number = Character.isDigit(token.charAt(i));
+    }
+    char first = token.charAt(0);
+    boolean result = "1-0".contentEquals(token) || "0-1".contentEquals(token)
+        || "1/2-1/2".contentEquals(token) || first == '*';
+    boolean skip = number || result || first == '$';
+
+    if (!skip) {
+      for (int i = 0; i < n; i++) moves = (moves ^ token.charAt(i)) * FNV_PRIME;
+      moves = (moves ^ ' ') * FNV_PRIME;
+    }
+    token.setLength(0);
+  }
+
+  private static long hash(long h, String s) {
+    for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * FNV_PRIME;
+    return (h ^ '\n') * FNV_PRIME;
+  }
+
+  /*
+   * Returns the fingerprint of the game read since the last reset
+   */
+  public long value() {
+    long h = FNV_OFFSET;
+    h = hash(h, white);
+    h = hash(h, black);
+    h = hash(h, date);
+    h = hash(h, result);
+    if (moves == FNV_OFFSET) { // no moves were read
+      h = hash(h, event);
+      h = hash(h, round);
+    }
+    h = (h ^ moves) * FNV_PRIME;
+    // final avalanche so that nearby hashes differ in all bits
+    h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+    h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+    return h ^ (h >>> 31);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Set of primitive longs using open addressing with linear probing
+ * Stores each value in a single slot of a long[] with no boxing, at a load factor of
+ * at most one half. Only insertion and membership tests are supported.
+ */
+public class LongHashSet {
+  private static final int INIT_CAPACITY = 16; // must be a power of two
+  private static final long EMPTY = 0; // marks an unused slot, 0 itself is kept apart
+
+  private long[] table;
+  private int n; // the number of values in the table
+  private boolean containsEmpty; // whether 0 is in the set
+
+  public LongHashSet() {
+    table = new long[INIT_CAPACITY];
+    n = 0;
+    containsEmpty = false;
+  }
+
+  // spreads the bits of the value so that similar values map to distant slots
+  private static int hash(long x) {
+    x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+    x = x ^ (x >>> 33);
+    return (int) x;
+  }
+
+  private void resize(int capacity) {
+    long[] old = table;
+    table = new long[capacity];
+    n = 0;
+    for (long x : old) {
+      if (x != EMPTY) add(x);
+    }
+  }
+
+  /*
+   * Adds the value to the set
+   * Returns false if the value was already in the set
+   */
+  public boolean add(long x) {
+    if (x == EMPTY) {
+      if (containsEmpty) return false;
+      containsEmpty = true;
+      return true;
+    }
+    if (2 * (n + 1) > table.length) resize(2 * table.length);
+
+    int mask = table.length - 1;
+    for (int i = hash(x) & mask; ; i = (i + 1) & mask) {
+      if (table[i] == x) return false;
+      if (table[i] == EMPTY) {
+        table[i] = x;
+        n++;
+        return true;
+      }
+    }
+  }
+
+  public boolean contains(long x) {
+    if (x == EMPTY) return containsEmpty;
+    int mask = table.length - 1;
+    for (int i = hash(x) & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+      if (table[i] == x) return true;
+    }
+    return false;
+  }
+
+  public int size() {
+    return containsEmpty ? n + 1 : n;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+}
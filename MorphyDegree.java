@@ -13,6 +13,9 @@
 
 import java.util.TreeMap;
 import java.util.Map;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Stack;
 import java.util.Comparator;
 import java.io.File;
@@ -23,16 +26,55 @@ import java.util.Scanner;
 import java.io.IOException;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
+import java.util.function.Predicate;
 import java.lang.IllegalArgumentException;
 
 public class MorphyDegree {
   private final String MORPHY = "Morphy, Paul";
 
-  private TreeMap<String, Integer> players; // symbol table to go to from name to id
-  private TreeMap<Integer, String> ids; // symbol table to go from id to name
-  private Graph G;
+  private static final int SUGGESTIONS = 5; // the number of suggestions for unknown players
+  private static final int AMBIGUOUS = -1; // abbreviation shared by several players
+
+  private TreeMap<String, Integer> players; // symbol table to go to from normalized name to id
+  private TreeMap<Integer, String> ids; // symbol table to go from id to name, while reading
+  private LinkedHashMap<String, Integer> spellings; // times each spelling was read, in reading order
+  private TreeMap<String, Integer> abbreviations; // abbreviated name to id, or AMBIGUOUS
+  private NameIndex index; // "did you mean" suggestions for unknown names
+  private Graph G; // the graph being built while the databases are read
+  private OffHeapGraph store; // the graph and names queried once the databases are read
+
+  // per-thread search space, see acquire()
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    protected Scratch initialValue() {
+      return new Scratch(store.V());
+    }
+  };
+
+  private LongHashSet fingerprints; // fingerprints of the games read so far
+  private int totalGames; // the number of distinct games processed
+  private int duplicateGames; // the number of repeated games skipped
+
+  // reusable arrays for one breadth-first search at a time
+  private static class Scratch {
+    private int[] marks; // marks[v] == epoch if v was visited by the current search
+    private int epoch; // the stamp of the current search
+    private int[] queue;
+    private boolean busy; // whether a search is using this scratch space
+
+    Scratch(int V) {
+      marks = new int[V];
+      queue = new int[V];
+    }
 
-  private int totalGames; // the total number of games processed
+    // starts a new search with every vertex unvisited
+    int nextEpoch() {
+      if (++epoch == 0) { // stamps wrapped around, start over
+        Arrays.fill(marks, 0);
+        epoch = 1;
+      }
+      return epoch;
+    }
+  }
 
   public MorphyDegree(String filename) {
     players = new TreeMap<>(new Comparator<String>() {
@@ -41,11 +83,16 @@ public class MorphyDegree {
       }
     });
     ids = new TreeMap<>();
+    spellings = new LinkedHashMap<>();
+    abbreviations = new TreeMap<>();
 
     G = new Graph();
+    fingerprints = new LongHashSet();
     totalGames = 0;
+    duplicateGames = 0;
 
     readFile(filename);
+    freeze();
   }
 
   public MorphyDegree(String[] files) {
@@ -55,79 +102,260 @@ public class MorphyDegree {
       }
     });
     ids = new TreeMap<>();
+    spellings = new LinkedHashMap<>();
+    abbreviations = new TreeMap<>();
 
     G = new Graph();
+    fingerprints = new LongHashSet();
     totalGames = 0;
+    duplicateGames = 0;
 
     for (int i = 0; i < files.length; i++) {
       readFile(files[i]);
     }
+    freeze();
   }
 
   private void readFile(String filename) {
     try {
       BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
 
-      Pattern playerWhite = Pattern.compile("\\[White \\\"(.*)\\\"\\]");
-      Pattern playerBlack = Pattern.compile("\\[Black \\\"(.*)\\\"\\]");
+      Pattern tag = Pattern.compile("^\\[(\\w+)\\s+\\\"(.*)\\\"\\]");
+
+      GameFingerprint fingerprint = new GameFingerprint();
+      String white = ""; // players of the game being read
+      String black = "";
+      boolean inGame = false; // whether the tags of a game have been seen
+      boolean inMoves = false; // whether the move text of the game has started
+      boolean headerEnded = false; // whether a blank line followed the tags of the game
+      HashSet<String> tags = new HashSet<>(); // tag names seen in the game
 
       String line;
       while ((line = br.readLine()) != null) {
-        Matcher whiteMatcher = playerWhite.matcher(line);
-        if (whiteMatcher.find()) {
-          totalGames++;
-
-          String white = whiteMatcher.group(1);
-
-          String black = "";
-          String line2 = br.readLine();
-          Matcher blackMatcher = playerBlack.matcher(line2);
-          if (blackMatcher.find()) {
-              black = blackMatcher.group(1);
+        line = line.trim();
+        if (line.startsWith("[") && !fingerprint.inComment()) {
+          Matcher tagMatcher = tag.matcher(line);
+          String name = tagMatcher.find() ? tagMatcher.group(1) : null;
+
+          // the tags of the next game start after the move text, after a blank line
+          // ending a header without moves, or when a tag of this game is repeated
+          if (inGame && (inMoves || headerEnded || (name != null && tags.contains(name)))) {
+            addGame(white, black, fingerprint.value());
+            fingerprint.reset();
+            white = black = "";
+            inMoves = false;
+            headerEnded = false;
+            tags.clear();
           }
-
-          if (!white.equals("NN") && !black.equals("NN")) {
-            int wVal;
-            int bVal;
-            if (!players.containsKey(white)) {
-              int id = players.size();
-              players.put(white, id);
-              ids.put(id, white);
-              wVal = id;
-              if (id == G.V() - 1) G.addVertex();
-            } else {
-              wVal = players.get(white);
-            }
-            if (!players.containsKey(black)) {
-              int id = players.size();
-              players.put(black, id);
-              ids.put(id, black);
-              bVal = id;
-              if (id == G.V() - 1) G.addVertex();
-            } else {
-              bVal = players.get(black);
-            }
-            if (!G.hasEdge(wVal, bVal)) {
-              G.addEdge(wVal, bVal);
-            }
+          inGame = true;
+          if (name != null) {
+            String value = tagMatcher.group(2);
+            tags.add(name);
+            fingerprint.tag(name, value);
+            if (name.equals("White")) white = value;
+            if (name.equals("Black")) black = value;
           }
+        } else if (!line.isEmpty() && inGame) {
+          inMoves = true;
+          fingerprint.moves(line);
+        } else if (line.isEmpty() && inGame && !inMoves) {
+          headerEnded = true;
         }
       }
+      if (inGame) addGame(white, black, fingerprint.value());
       br.close();
     } catch (IOException ioe) {
       throw new IllegalArgumentException("Cannot open file: " + ioe);
     }
   }
 
+  /*
+   * Adds a game to the graph unless a game with the same fingerprint was already read
+   */
+  private void addGame(String white, String black, long fingerprint) {
+    if (!fingerprints.add(fingerprint)) {
+      duplicateGames++;
+      return;
+    }
+    totalGames++;
+
+    if (white.isEmpty() || black.isEmpty()) return; // game without players
+    if (!white.equals("NN") && !black.equals("NN")) {
+      int wVal = addPlayer(white);
+      int bVal = addPlayer(black);
+      if (!G.hasEdge(wVal, bVal)) {
+        G.addEdge(wVal, bVal);
+      }
+    }
+  }
+
+  /*
+   * Returns the id of the given player, creating a new vertex if needed
+   * Spellings that normalize to the same key share a vertex. Names given with initials
+   * only are merged later by mergeInitials, once every database has been read.
+   */
+  private int addPlayer(String name) {
+    spellings.merge(name, 1, Integer::sum);
+    String key = PlayerNames.normalize(name);
+    Integer known = players.get(key);
+    if (known != null) return known;
+
+    int id = ids.size();
+    players.put(key, id);
+    ids.put(id, name);
+    if (key.indexOf(',') >= 0 && !PlayerNames.isAbbreviated(key)) {
+      String abbr = PlayerNames.abbreviate(key);
+      abbreviations.put(abbr, abbreviations.containsKey(abbr) ? AMBIGUOUS : id);
+    }
+    if (id == G.V() - 1) G.addVertex();
+    return id;
+  }
+
+  /*
+   * Merges every player known only by initials, e.g. "Morphy, P.", into the single full
+   * name with the same surname and initials, and renumbers the players and the graph
+   * Initials matching several full names, or none, stay a player of their own. This runs
+   * after all the databases are read so the result does not depend on the game order.
+   */
+  private void mergeInitials() {
+    int n = ids.size();
+    int[] target = new int[n]; // the player each player is merged into
+    boolean merged = false;
+    for (int v = 0; v < n; v++) {
+      target[v] = v;
+      String key = PlayerNames.normalize(ids.get(v));
+      if (!PlayerNames.isAbbreviated(key)) continue;
+      Integer match = abbreviations.get(key);
+      if (match != null && match != AMBIGUOUS) {
+        target[v] = match;
+        merged = true;
+      }
+    }
+    if (!merged) return;
+
+    // full names are never merged, so every target keeps its place
+    int[] renumber = new int[n];
+    int m = 0;
+    for (int v = 0; v < n; v++) {
+      if (target[v] == v) renumber[v] = m++;
+    }
+    for (int v = 0; v < n; v++) {
+      renumber[v] = renumber[target[v]];
+    }
+
+    Graph merge = new Graph();
+    while (merge.V() < m) merge.addVertex();
+    for (int v = 0; v < n; v++) {
+      for (int w : G.adj(v)) {
+        int a = renumber[v];
+        int b = renumber[w];
+        if (v < w && a != b && !merge.hasEdge(a, b)) merge.addEdge(a, b);
+      }
+    }
+    G = merge;
+
+    TreeMap<Integer, String> names = new TreeMap<>();
+    for (int v = 0; v < n; v++) {
+      if (target[v] == v) names.put(renumber[v], ids.get(v));
+    }
+    ids = names;
+    for (Map.Entry<String, Integer> p : players.entrySet()) {
+      p.setValue(renumber[p.getValue()]);
+    }
+    for (Map.Entry<String, Integer> p : abbreviations.entrySet()) {
+      if (p.getValue() != AMBIGUOUS) p.setValue(renumber[p.getValue()]);
+    }
+  }
+
+  /*
+   * Picks the name shown for every player among the spellings of its full name
+   * A tidy spelling (see PlayerNames.isTidy) wins over an untidy one, then the most
+   * frequent one; ties keep the spelling read first. Initials merged into a player are
+   * never shown in place of the full name.
+   */
+  private void chooseSpellings() {
+    int[] counts = new int[ids.size()];
+    for (int v = 0; v < counts.length; v++) {
+      counts[v] = spellings.get(ids.get(v));
+    }
+    for (Map.Entry<String, Integer> e : spellings.entrySet()) {
+      String name = e.getKey();
+      int count = e.getValue();
+      String key = PlayerNames.normalize(name);
+      int v = players.get(key);
+      String shown = ids.get(v);
+      if (!key.equals(PlayerNames.normalize(shown))) continue; // merged initials
+
+      boolean tidy = PlayerNames.isTidy(name);
+      boolean shownTidy = PlayerNames.isTidy(shown);
+      if (tidy != shownTidy ? tidy : count > counts[v]) {
+        ids.put(v, name);
+        counts[v] = count;
+      }
+    }
+  }
+
+  /*
+   * Moves the graph and the names shown to the user off the heap once all databases
+   * are read. The Bag based graph and the id table are dropped, so the garbage collector
+   * no longer traces an object per edge. The lookup side stays on the heap: the players
+   * and abbreviations symbol tables, and the trigram postings of the NameIndex.
+   */
+  private void freeze() {
+    mergeInitials();
+    chooseSpellings();
+
+    String[] names = new String[ids.size()];
+    for (Map.Entry<Integer, String> p : ids.entrySet()) {
+      names[p.getKey()] = p.getValue();
+    }
+    store = new OffHeapGraph(G, names);
+
+    index = new NameIndex(players, names.length);
+    for (int v = 0; v < names.length; v++) {
+      index.add(names[v], v);
+    }
+
+    G = null;
+    ids = null;
+    spellings = null;
+    fingerprints = null;
+  }
+
+  /*
+   * Returns the id of the given player, or -1 if the player is unknown
+   * The name is normalized, so any spelling that was merged during ingest is found,
+   * and initials not seen in the databases resolve to the single matching full name
+   */
+  private int lookup(String player) {
+    String key = PlayerNames.normalize(player);
+    Integer id = players.get(key);
+    if (id != null) return id;
+    Integer match = abbreviations.get(PlayerNames.abbreviate(key));
+    if (match != null && match != AMBIGUOUS && PlayerNames.isAbbreviated(key)) return match;
+    return -1;
+  }
+
   private void validatePlayer(String player) {
     if (player == null) {
       throw new IllegalArgumentException("Argument is null");
     }
-    if (!players.containsKey(player)) {
+    if (lookup(player) == -1) {
       throw new IllegalArgumentException("No games by the given player " + player + " exist in the input file");
     }
   }
 
+  /*
+   * Returns at most SUGGESTIONS known player names resembling the given name
+   */
+  public Iterable<String> suggestPlayers(String player) {
+    Queue<String> names = new Queue<>();
+    for (int id : index.suggest(player, SUGGESTIONS)) {
+      names.enqueue(store.name(id));
+    }
+    return names;
+  }
+
   /*
    * Calculates the minimum distance and path of every player with respect to the given player
    * Someone please come up with a better method name
@@ -135,34 +363,117 @@ public class MorphyDegree {
   public PlayerDegrees calculateAll(String player) {
     validatePlayer(player);
 
-    int start = players.get(player);
+    int start = lookup(player);
 
-    boolean[] visited = new boolean[G.V()];
-    int[] path = new int[G.V()];
-    int[] dist = new int[G.V()];
-    for (int i = 0; i < G.V(); i++) {
+    int[] path = new int[store.V()];
+    int[] dist = new int[store.V()];
+    for (int i = 0; i < store.V(); i++) {
       path[i] = -1;
       dist[i] = -1;
     }
-    Queue<Integer> q = new Queue<>();
-
-    visited[start] = true;
-    dist[start] = 0;
 
-    int current = start;
-    while (!q.isEmpty()) {
-      for (int v : G.adj(current)) {
-        if (!visited[v]) {
-          path[v] = current;
-          dist[v] = dist[current] + 1;
-          visited[v] = true;
-          q.enqueue(v);
+    Scratch space = acquire();
+    try {
+      int[] queue = space.queue;
+      int head = 0, tail = 0;
+      dist[start] = 0;
+      queue[tail++] = start;
+
+      while (head < tail) {
+        int current = queue[head++];
+        for (int i = store.first(current); i < store.first(current + 1); i++) {
+          int v = store.target(i);
+          if (dist[v] == -1) {
+            path[v] = current;
+            dist[v] = dist[current] + 1;
+            queue[tail++] = v;
+          }
         }
       }
-      current = q.dequeue();
+    } finally {
+      space.busy = false;
+    }
+
+    return new PlayerDegrees(this::lookup, store, path, dist);
+  }
+
+  /*
+   * Reports every player within the given degree of player, closest first
+   * The search stops expanding at the radius, so only that neighbourhood is visited
+   */
+  public void playersWithin(String player, int radius, PlayerVisitor visitor) {
+    validatePlayer(player);
+    if (radius < 0) {
+      throw new IllegalArgumentException("radius must be non-negative");
     }
+    traverse(lookup(player), radius, Integer.MAX_VALUE, null, visitor);
+  }
 
-    return new PlayerDegrees(player, players, ids, path, dist);
+  /*
+   * Reports the k players closest to player that are accepted by filter, closest first
+   * Players at the same degree are reported in arbitrary order. A null filter accepts
+   * every player. The search stops as soon as k players have been reported.
+   */
+  public void nearestPlayers(String player, int k, Predicate<String> filter, PlayerVisitor visitor) {
+    validatePlayer(player);
+    if (k <= 0) {
+      throw new IllegalArgumentException("k must be positive");
+    }
+    traverse(lookup(player), Integer.MAX_VALUE, k, filter, visitor);
+  }
+
+  /*
+   * Returns the search space of the calling thread
+   * Each thread keeps one, so concurrent queries do not interfere, and a query started
+   * from inside a visitor while the thread's space is in use gets a fresh one.
+   */
+  private Scratch acquire() {
+    Scratch space = scratch.get();
+    if (space.busy) space = new Scratch(store.V());
+    space.busy = true;
+    return space;
+  }
+
+  /*
+   * Breadth-first search from start, one degree at a time, reporting at most limit
+   * players within radius. Visited vertices are marked in a reusable array stamped with
+   * the current epoch, so a small neighbourhood costs no V-sized allocation.
+   */
+  private void traverse(int start, int radius, int limit, Predicate<String> filter, PlayerVisitor visitor) {
+    if (visitor == null) {
+      throw new IllegalArgumentException("Argument is null");
+    }
+    Scratch space = acquire();
+    try {
+      int[] marks = space.marks;
+      int[] queue = space.queue;
+      int epoch = space.nextEpoch();
+
+      marks[start] = epoch;
+      int head = 0, tail = 0;
+      queue[tail++] = start;
+
+      int found = 0;
+      for (int degree = 1; degree <= radius && head < tail; degree++) {
+        int end = tail; // the players at degree - 1 are queue[head .. end - 1]
+        while (head < end) {
+          int u = queue[head++];
+          for (int i = store.first(u); i < store.first(u + 1); i++) {
+            int v = store.target(i);
+            if (marks[v] == epoch) continue;
+            marks[v] = epoch;
+            queue[tail++] = v;
+
+            String name = store.name(v);
+            if (filter != null && !filter.test(name)) continue;
+            if (!visitor.visit(name, degree)) return;
+            if (++found == limit) return;
+          }
+        }
+      }
+    } finally {
+      space.busy = false;
+    }
   }
 
   /*
@@ -180,104 +491,155 @@ public class MorphyDegree {
     validatePlayer(player);
     validatePlayer(target);
 
-    int start = players.get(player);
-    int end = players.get(target);
+    int start = lookup(player);
+    int end = lookup(target);
+    if (start == end) return 0;
 
-    boolean[] visited = new boolean[G.V()];
-    int[] dist = new int[G.V()];
-    for (int i = 0; i < G.V(); i++) {
-      dist[i] = -1;
-    }
-    Queue<Integer> q = new Queue<>();
-
-    visited[start] = true;
-    dist[start] = 0;
-
-    int current = start;
-    while (current != end) {
-      for (int v : G.adj(current)) {
-        if (!visited[v]) {
-          dist[v] = dist[current] + 1;
-          visited[v] = true;
-          q.enqueue(v);
+    Scratch space = acquire();
+    try {
+      int[] marks = space.marks;
+      int[] queue = space.queue;
+      int epoch = space.nextEpoch();
+
+      marks[start] = epoch;
+      int head = 0, tail = 0;
+      queue[tail++] = start;
+
+      for (int degree = 1; head < tail; degree++) {
+        int last = tail; // the players at degree - 1 are queue[head .. last - 1]
+        while (head < last) {
+          int current = queue[head++];
+          for (int i = store.first(current); i < store.first(current + 1); i++) {
+            int v = store.target(i);
+            if (v == end) return degree;
+            if (marks[v] == epoch) continue;
+            marks[v] = epoch;
+            queue[tail++] = v;
+          }
         }
       }
-      if (q.isEmpty()) break;
-      current = q.dequeue();
+      return -1;
+    } finally {
+      space.busy = false;
     }
-    return dist[end];
   }
 
-  public Iterable<String> getPlayerSequence(String player) {
+  /*
+   * Computes the average separation over all pairs of players and the number of players
+   * within hops of every player, searching from a sampleRate fraction of the players
+   * The ids used by the result are the ones listed by printPlayers. If checkpoint is not
+   * null, progress is saved to that file and a previous run is resumed from it.
+   */
+  public SeparationStats separationStats(int hops, double sampleRate, long seed, String checkpoint) {
+    return new SeparationStats(store, hops, sampleRate, seed, checkpoint);
+  }
+
+  /*
+   * Finds the articulation points and bridges of the graph, searching from Paul Morphy,
+   * and estimates betweenness from the given number of random source players
+   * Throws if Paul Morphy has no games in the databases
+   */
+  public CriticalPlayers criticalPlayers(int samples, long seed) {
+    validatePlayer(MORPHY);
+    return new CriticalPlayers(store, lookup(MORPHY), samples, seed);
+  }
+
+  /*
+   * Returns the name of the player with the given id, as listed by printPlayers
+   */
+  public String playerName(int id) {
+    return store.name(id);
+  }
+
+  public PlayerPath getPlayerSequence(String player) {
     return getPlayerSequence(player, MORPHY);
   }
 
-  public Iterable<String> getPlayerSequence(String player, String target) {
+  /*
+   * Returns the chain of players from target back to player, or null if there is none
+   * The names are only looked up as the path is iterated, see PlayerPath. A player's
+   * chain to themselves has length 0.
+   */
+  public PlayerPath getPlayerSequence(String player, String target) {
     validatePlayer(player);
     validatePlayer(target);
 
-    int start = players.get(player);
-    int end = players.get(target);
+    int start = lookup(player);
+    int end = lookup(target);
 
-    boolean[] visited = new boolean[G.V()];
-    int[] path = new int[G.V()];
-    for (int i = 0; i < G.V(); i++) {
+    int[] path = new int[store.V()];
+    for (int i = 0; i < store.V(); i++) {
       path[i] = -1;
     }
-    Queue<Integer> q = new Queue<>();
-
-    visited[start] = true;
 
-    int current = start;
-    while (current != end) {
-      for (int v : G.adj(current)) {
-        if (!visited[v]) {
-          path[v] = current;
-          visited[v] = true;
-          q.enqueue(v);
+    Scratch space = acquire();
+    try {
+      int[] marks = space.marks;
+      int[] queue = space.queue;
+      int epoch = space.nextEpoch();
+
+      marks[start] = epoch;
+      int head = 0, tail = 0;
+      queue[tail++] = start;
+
+      while (head < tail && marks[end] != epoch) {
+        int current = queue[head++];
+        for (int i = store.first(current); i < store.first(current + 1); i++) {
+          int v = store.target(i);
+          if (marks[v] != epoch) {
+            path[v] = current;
+            marks[v] = epoch;
+            queue[tail++] = v;
+          }
         }
       }
-      if (q.isEmpty()) break;
-      current = q.dequeue();
+    } finally {
+      space.busy = false;
     }
 
-    if (path[end] == -1) return null; // no path from player to target
+    if (path[end] == -1 && end != start) return null; // no path from player to target
 
-    Queue<String> playerSequence = new Queue<>();
-    playerSequence.enqueue(target);
-    int pathNode = end;
-    while (pathNode != start) {
-      pathNode = path[pathNode];
-      playerSequence.enqueue(ids.get(pathNode));
-    }
-    return playerSequence;
+    return new PlayerPath(store, path, end);
   }
 
   private void queryPlayer(String player) {
-    if (players.containsKey(player)) {
-      int connections = 0;
-      for (int i : G.adj(players.get(player))) connections++;
-      System.out.println(connections + " connections found for " + player);
+    int id = lookup(player);
+    if (id != -1) {
+      int connections = store.degree(id);
+      System.out.println(connections + " connections found for " + store.name(id));
     } else {
       System.out.println("Player " + player + " not found");
+      StringBuilder s = new StringBuilder();
+      for (String name : suggestPlayers(player)) {
+        if (s.length() > 0) s.append("; ");
+        s.append(name);
+      }
+      if (s.length() > 0) System.out.println("Did you mean: " + s);
     }
   }
 
   public void printPlayers() {
-    for (Map.Entry<String, Integer> p : players.entrySet()) {
-      System.out.println(p.getValue() + ": " + p.getKey());
+    for (int v = 0; v < store.V(); v++) {
+      System.out.println(v + ": " + store.name(v));
     }
-    System.out.println(players.size() + " players found");
+    System.out.println(store.V() + " players found");
   }
 
   public int dbSize() {
-    return players.size();
+    return store.V();
   }
 
   public int games() {
     return totalGames;
   }
 
+  /*
+   * Returns the number of games skipped because they repeat an earlier game
+   */
+  public int duplicates() {
+    return duplicateGames;
+  }
+
   public static void main(String[] args) {
     String[] files = new String[args.length];
     for (int i = 0; i < args.length; i++) {
@@ -287,7 +649,7 @@ public class MorphyDegree {
 
     // db.printPlayers();
     System.out.println(db.dbSize());
-    System.out.println(db.games());
+    System.out.println(db.games() + " games, " + db.duplicates() + " duplicates skipped");
 
     Scanner in = new Scanner(System.in);
     while (true) {
@@ -0,0 +1,117 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Search index over the player names for "did you mean" suggestions
+ *
+ * Names are looked up by their normalized key (see PlayerNames). A query first
+ * collects the names that start with the query, then fills the remaining slots with
+ * the names sharing the most trigrams with it, so that misspelled names are found too.
+ * The prefix search runs over the sorted symbol table of MorphyDegree, which is shared
+ * rather than copied. The trigram postings are kept on the heap.
+ * The index is built once after the databases have been read. Queries keep their
+ * scores per call, touching only the names that share a trigram with the query, so a
+ * built index can be queried from several threads at once.
+ */
+public class NameIndex {
+  private TreeMap<String, Integer> keys; // sorted normalized names for prefix search, shared
+  private HashMap<String, Bag<Integer>> grams; // trigram -> ids of the names containing it
+  private int[] gramCounts; // the number of distinct trigrams of each id
+
+  public NameIndex(TreeMap<String, Integer> keys, int size) {
+    this.keys = keys;
+    grams = new HashMap<>();
+    gramCounts = new int[size];
+  }
+
+  private void validateId(int id) {
+    if (id < 0 || id >= gramCounts.length) {
+      throw new IllegalArgumentException("id " + id + " out of bounds");
+    }
+  }
+
+  /*
+   * Adds the given name to the index
+   * Each id should be added once, with the name that is shown to the user
+   */
+  public void add(String name, int id) {
+    validateId(id);
+    String key = PlayerNames.normalize(name);
+
+    String padded = " " + key + " ";
+    HashSet<String> seen = new HashSet<>();
+    for (int i = 0; i + 3 <= padded.length(); i++) {
+      String gram = padded.substring(i, i + 3);
+      if (!seen.add(gram)) continue;
+      Bag<Integer> ids = grams.get(gram);
+      if (ids == null) {
+        ids = new Bag<>();
+        grams.put(gram, ids);
+      }
+      ids.add(id);
+    }
+    gramCounts[id] = seen.size();
+  }
+
+  /*
+   * Returns the ids of at most limit names resembling the query, best matches first
+   */
+  public Iterable<Integer> suggest(String query, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive");
+    }
+    String key = PlayerNames.normalize(query);
+    Queue<Integer> result = new Queue<>();
+    if (key.isEmpty()) return result;
+
+    // names starting with the query are the most likely candidates
+    HashSet<Integer> listed = new HashSet<>();
+    for (Map.Entry<String, Integer> e : keys.subMap(key, key + Character.MAX_VALUE).entrySet()) {
+      if (result.size() == limit) break;
+      if (!listed.add(e.getValue())) continue; // another spelling of a listed player
+      result.enqueue(e.getValue());
+    }
+    int prefixed = result.size();
+    if (prefixed == limit) return result;
+
+    // score the remaining names by the trigrams they share with the query
+    String padded = " " + key + " ";
+    HashSet<String> seen = new HashSet<>();
+    HashMap<Integer, Integer> scores = new HashMap<>(); // id -> shared trigrams
+    for (int i = 0; i + 3 <= padded.length(); i++) {
+      String gram = padded.substring(i, i + 3);
+      if (!seen.add(gram)) continue;
+      Bag<Integer> ids = grams.get(gram);
+      if (ids == null) continue;
+      for (int id : ids) {
+        if (!listed.contains(id)) scores.merge(id, 1, Integer::sum);
+      }
+    }
+
+    // pick the best candidates by Jaccard similarity, keeping the top ones sorted
+    int slots = limit - prefixed;
+    int[] best = new int[slots];
+    double[] bestSim = new double[slots];
+    int found = 0;
+    int queryGrams = seen.size();
+    for (Map.Entry<Integer, Integer> e : scores.entrySet()) {
+      int id = e.getKey();
+      int shared = e.getValue();
+      double sim = (double) shared / (queryGrams + gramCounts[id] - shared);
+      if (found == slots && sim <= bestSim[slots - 1]) continue;
+      int j = found < slots ? found++ : slots - 1;
+      while (j > 0 && bestSim[j - 1] < sim) {
+        best[j] = best[j - 1];
+        bestSim[j] = bestSim[j - 1];
+        j--;
+      }
+      best[j] = id;
+      bestSim[j] = sim;
+    }
+
+    for (int i = 0; i < found; i++) result.enqueue(best[i]);
+    return result;
+  }
+}
@@ -0,0 +1,204 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Read-only graph of players kept outside of the Java heap
+ *
+ * The adjacency lists are stored in compressed sparse row form: the neighbours of v are
+ * neighbours[offsets[v]] .. neighbours[offsets[v + 1] - 1]. The player names are stored
+ * as UTF-8 in a single byte arena indexed the same way by nameOffsets. All of them live
+ * in direct buffers, so however large the graph grows, the edges and names add no
+ * objects for the garbage collector to trace.
+ *
+ * A direct buffer holds at most 2 GiB, so the neighbour array is split into chunks of
+ * 2^28 entries. Positions are ints, which limits the graph to 2^31 - 1 adjacency
+ * entries (about a billion distinct pairings), fewer than 2^29 players, and a name
+ * arena of 2 GiB.
+ *
+ * A graph is built from a Graph once all the databases have been read. It is always a
+ * simple graph: repeated pairings and games against oneself are dropped, and each
+ * player's neighbours are stored in ascending order.
+ * Reads use absolute indices only, so one instance can be shared between threads.
+ */
+public class OffHeapGraph {
+  private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+  private static final int CHUNK_BITS = 28; // 2^28 ints, 1 GiB per neighbour buffer
+  private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+  private final int V; // the number of vertices
+  private final int E; // the number of edges
+
+  private final IntBuffer offsets;
+  private final IntBuffer[] neighbours; // chunks of the neighbour array
+  private final IntBuffer nameOffsets;
+  private final ByteBuffer names;
+
+  /*
+   * Copies the first names.length vertices of G, and their names, into direct buffers
+   */
+  public OffHeapGraph(Graph G, String[] names) {
+    if (names.length > G.V()) {
+      throw new IllegalArgumentException("vertex count " + names.length + " out of bounds");
+    }
+    V = names.length;
+
+    // each run of neighbours is sorted and kept without repeats or loops, so that
+    // parallel edges in G never reach the searches; the runs are sorted twice rather
+    // than kept on the heap between the two passes
+    int longest = 0;
+    for (int v = 0; v < V; v++) {
+      int d = 0;
+      for (int w : G.adj(v)) d++;
+      longest = Math.max(longest, d);
+    }
+    int[] run = new int[longest];
+
+    offsets = allocate(4L * (V + 1)).asIntBuffer();
+    long edges = 0;
+    for (int v = 0; v < V; v++) {
+      offsets.put(v, (int) edges);
+      edges += distinctNeighbours(G, v, run);
+      if (edges > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("graph too large: more than 2^31 - 1 adjacency entries");
+      }
+    }
+    offsets.put(V, (int) edges);
+    E = (int) (edges / 2);
+
+    int chunks = (int) ((edges + CHUNK_MASK) >>> CHUNK_BITS);
+    neighbours = new IntBuffer[chunks];
+    for (int c = 0; c < chunks; c++) {
+      long size = Math.min(edges - ((long) c << CHUNK_BITS), 1L << CHUNK_BITS);
+      neighbours[c] = allocate(4L * size).asIntBuffer();
+    }
+    for (int v = 0; v < V; v++) {
+      int n = distinctNeighbours(G, v, run);
+      int i = offsets.get(v);
+      for (int j = 0; j < n; j++) {
+        neighbours[i >>> CHUNK_BITS].put(i & CHUNK_MASK, run[j]);
+        i++;
+      }
+    }
+
+    byte[][] encoded = new byte[V][];
+    long arena = 0;
+    for (int v = 0; v < V; v++) {
+      encoded[v] = names[v].getBytes(StandardCharsets.UTF_8);
+      arena += encoded[v].length;
+    }
+    nameOffsets = allocate(4L * (V + 1)).asIntBuffer();
+    this.names = allocate(arena);
+    int pos = 0;
+    for (int v = 0; v < V; v++) {
+      nameOffsets.put(v, pos);
+      this.names.put(pos, encoded[v]);
+      pos += encoded[v].length;
+    }
+    nameOffsets.put(V, pos);
+  }
+
+  /*
+   * Writes the distinct neighbours of v other than v itself, in ascending order, to the
+   * start of run and returns their number
+   */
+  private static int distinctNeighbours(Graph G, int v, int[] run) {
+    int n = 0;
+    for (int w : G.adj(v)) run[n++] = w;
+    Arrays.sort(run, 0, n);
+    int m = 0;
+    for (int j = 0; j < n; j++) {
+      if (run[j] == v || (m > 0 && run[m - 1] == run[j])) continue;
+      run[m++] = run[j];
+    }
+    return m;
+  }
+
+  private static ByteBuffer allocate(long size) {
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("graph too large for a single buffer");
+    }
+    return ByteBuffer.allocateDirect((int) size).order(ORDER);
+  }
+
+  private void validateVertex(int v) {
+    if (v < 0 || v >= V) {
+      throw new IllegalArgumentException("vertex " + v + " out of bounds");
+    }
+  }
+
+  public int degree(int v) {
+    validateVertex(v);
+    return offsets.get(v + 1) - offsets.get(v);
+  }
+
+  /*
+   * Returns the position of the first neighbour of v, see target()
+   * The neighbours of v are target(first(v)) .. target(first(v + 1) - 1)
+   * These two are meant for inner loops and rely on the buffer's own bounds checks
+   */
+  public int first(int v) {
+    return offsets.get(v);
+  }
+
+  public int target(int i) {
+    return neighbours[i >>> CHUNK_BITS].get(i & CHUNK_MASK);
+  }
+
+  public boolean hasEdge(int v, int w) {
+    validateVertex(v);
+    validateVertex(w);
+    if (degree(v) > degree(w)) {
+      int t = v;
+      v = w;
+      w = t;
+    }
+    for (int i = offsets.get(v); i < offsets.get(v + 1); i++) {
+      if (target(i) == w) return true;
+    }
+    return false;
+  }
+
+  public Iterable<Integer> adj(int v) {
+    validateVertex(v);
+    final int lo = offsets.get(v);
+    final int hi = offsets.get(v + 1);
+    return new Iterable<Integer>() {
+      public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+          private int i = lo;
+
+          public boolean hasNext() { return i < hi; }
+
+          public Integer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return target(i++);
+          }
+        };
+      }
+    };
+  }
+
+  /*
+   * Returns the name of player v, decoded from the name arena
+   */
+  public String name(int v) {
+    validateVertex(v);
+    int lo = nameOffsets.get(v);
+    byte[] b = new byte[nameOffsets.get(v + 1) - lo];
+    names.get(lo, b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  public int V() {
+    return V;
+  }
+
+  public int E() {
+    return E;
+  }
+}
@@ -0,0 +1,10 @@
+/*
+ * Callback for the shortest path enumeration of PlayerDegrees
+ */
+public interface PathVisitor {
+  /*
+   * Called once for every shortest path found
+   * The path is only valid during the call; returning false stops the enumeration
+   */
+  boolean visit(PlayerPath path);
+}
@@ -1,25 +1,21 @@
-import java.util.TreeMap;
-import java.util.Stack;
+import java.util.function.ToIntFunction;
 
 /*
  * Helper class for calculating all paths and degrees emanating from the source player
  */
 public class PlayerDegrees {
-  private String sourcePlayer;
-  private TreeMap<String, Integer> players;
-  private TreeMap<Integer, String> ids;
+  private ToIntFunction<String> players; // player name to id, -1 if unknown
+  private OffHeapGraph store;
   private int[] paths;
   private int[] degrees;
 
-  public PlayerDegrees(String sourcePlayer,
-                        TreeMap<String, Integer> players,
-                        TreeMap<Integer, String> ids,
+  public PlayerDegrees(ToIntFunction<String> players,
+                        OffHeapGraph store,
                         int[] paths,
                         int[] degrees)
   {
-    this.sourcePlayer = sourcePlayer;
     this.players = players;
-    this.ids = ids;
+    this.store = store;
     this.paths = paths;
     this.degrees = degrees;
   }
@@ -28,30 +24,82 @@ public class PlayerDegrees {
     if (player == null) {
       throw new IllegalArgumentException("Argument is null");
     }
-    if (!players.containsKey(player)) {
+    if (players.applyAsInt(player) == -1) {
       throw new IllegalArgumentException("No games by the given player " + player + " exist in the input file");
     }
   }
 
-  public Iterable<String> queryPath(String player) {
+  /*
+   * Returns the path from player back to the source player, or null if there is none
+   * The path is a view over the search results, see PlayerPath. For the source player
+   * itself the path has length 0.
+   */
+  public PlayerPath queryPath(String player) {
     validatePlayer(player);
 
-    int goal = players.get(player);
-    int start = players.get(sourcePlayer);
-    if (paths[goal] == -1) return null;
+    int goal = players.applyAsInt(player);
+    if (degrees[goal] == -1) return null;
+    return new PlayerPath(store, paths, goal, degrees[goal]);
+  }
+
+  /*
+   * Reports at most limit distinct shortest paths from player back to the source player
+   * The paths are enumerated depth first along the players one degree closer to the
+   * source, so only O(degree) memory is used however many paths exist. OffHeapGraph keeps
+   * no repeated neighbours, so players who met several times give one path. Each call has
+   * its own state, so a visitor may start another enumeration. Returns the number of
+   * paths reported; for the source player itself that is one path of length 0.
+   */
+  public int shortestPaths(String player, int limit, PathVisitor visitor) {
+    validatePlayer(player);
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive");
+    }
+    if (visitor == null) {
+      throw new IllegalArgumentException("Argument is null");
+    }
+
+    int goal = players.applyAsInt(player);
+    int length = degrees[goal];
+    if (length == -1) return 0;
+
+    int[] stack = new int[length + 1]; // stack[d] is the player at d games from the goal
+    int[] next = new int[length + 1]; // position of the next neighbour of stack[d] to try
+    PlayerPath path = PlayerPath.ofVertices(store, stack, goal, length);
+    stack[0] = goal;
+    next[0] = store.first(goal);
 
-    Stack<String> playerSequence = new Stack<>();
-    playerSequence.push(player);
-    int pathNode = goal;
-    while (pathNode != start) {
-      pathNode = paths[pathNode];
-      playerSequence.push(ids.get(pathNode));
+    int found = 0;
+    int depth = 0;
+    while (depth >= 0) {
+      if (depth == length) { // reached the source
+        found++;
+        if (!visitor.visit(path) || found == limit) break;
+        depth--;
+        continue;
+      }
+      int v = stack[depth];
+      int u = -1;
+      while (next[depth] < store.first(v + 1)) {
+        int w = store.target(next[depth]++);
+        if (degrees[w] == degrees[v] - 1) {
+          u = w;
+          break;
+        }
+      }
+      if (u == -1) {
+        depth--;
+      } else {
+        depth++;
+        stack[depth] = u;
+        next[depth] = store.first(u);
+      }
     }
-    return playerSequence;
+    return found;
   }
 
   public int queryDegree(String player) {
     validatePlayer(player);
-    return degrees[players.get(player)];
+    return degrees[players.applyAsInt(player)];
   }
 }
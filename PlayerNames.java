@@ -0,0 +1,90 @@
+/*
+ * Helper functions for turning the player names found in PGN headers into lookup keys
+ *
+ * PGN databases spell the same player in many ways: "Morphy, Paul", "Morphy,Paul",
+ * "morphy, paul" and "Morphy, P." all refer to the same person. The normalized key
+ * ignores case, punctuation and spacing, and the abbreviated key reduces the given
+ * names to their initials so that "Morphy, P." can be matched against "Morphy, Paul".
+ */
+public class PlayerNames {
+
+  private PlayerNames() { }
+
+  /*
+   * Returns the lookup key of the given name: lower case, with periods and apostrophes
+   * removed, other punctuation turned into spaces and whitespace collapsed.
+   * The first comma, separating the surname from the given names, is kept as ", "
+   * e.g. " Morphy,Paul. " -> "morphy, paul"
+   */
+  public static String normalize(String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("Argument is null");
+    }
+    StringBuilder s = new StringBuilder(name.length());
+    boolean comma = false; // whether the surname separator has been written
+    boolean space = false; // whether a separator is pending before the next letter
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        if (space && s.length() > 0) s.append(' ');
+        space = false;
+        s.append(Character.toLowerCase(c));
+      } else if (c == '.' || c == '\'') {
+        // "P." and "O'Kelly" are written without punctuation by some databases
+        if (c == '.') space = true;
+      } else if (c == ',' && !comma && s.length() > 0) {
+        s.append(',');
+        comma = true;
+        space = true;
+      } else {
+        space = true;
+      }
+    }
+    return s.toString();
+  }
+
+  /*
+   * Returns the abbreviated form of a normalized key, where every given name is
+   * replaced by its initial, e.g. "morphy, paul charles" -> "morphy, p c"
+   * Keys without a surname separator are returned as is
+   */
+  public static String abbreviate(String key) {
+    int comma = key.indexOf(',');
+    if (comma < 0) return key;
+
+    StringBuilder s = new StringBuilder(key.length());
+    s.append(key, 0, comma + 1);
+    boolean start = true;
+    for (int i = comma + 1; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c == ' ') {
+        start = true;
+      } else if (start) {
+        s.append(' ').append(c);
+        start = false;
+      }
+    }
+    return s.toString();
+  }
+
+  /*
+   * Returns whether a name is written the way it should be shown: in mixed case, without
+   * surrounding or repeated spaces, and with the surname followed by ", "
+   * e.g. "Morphy, Paul" and "van der Wiel, John" are tidy, "morphy,paul" is not
+   */
+  public static boolean isTidy(String name) {
+    if (name.isEmpty() || !name.equals(name.trim()) || name.contains("  ")) return false;
+    if (name.equals(name.toLowerCase()) || name.equals(name.toUpperCase())) return false;
+    int comma = name.indexOf(',');
+    if (comma < 0) return true;
+    return comma > 0 && name.charAt(comma - 1) != ' '
+        && comma + 1 < name.length() && name.charAt(comma + 1) == ' ';
+  }
+
+  /*
+   * Returns whether the given names of a normalized key consist of initials only
+   */
+  public static boolean isAbbreviated(String key) {
+    return key.indexOf(',') >= 0 && key.equals(abbreviate(key));
+  }
+}
@@ -0,0 +1,131 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * A chain of players, read on demand from the parent array of a breadth-first search
+ *
+ * The path runs from the goal player back to the source of the search, following
+ * parents[v] until a vertex without a parent (-1) is reached. Nothing is copied: the
+ * length and the vertices are found by walking the array, and names are only decoded
+ * when asked for, so a caller that needs just the length or the first hop pays for
+ * nothing else. Paths listed by PlayerDegrees.shortestPaths are instead backed by the
+ * array of their vertices, from the goal to the source.
+ */
+public class PlayerPath implements Iterable<String> {
+  private final OffHeapGraph store;
+  private final int[] parents; // parent array of the search, or null
+  private final int[] vertices; // the vertices from goal to source, if parents is null
+  private final int goal;
+  private int length; // the number of games in the chain, -1 until known
+
+  public PlayerPath(OffHeapGraph store, int[] parents, int goal) {
+    this(store, parents, goal, -1);
+  }
+
+  PlayerPath(OffHeapGraph store, int[] parents, int goal, int length) {
+    this(store, parents, null, goal, length);
+  }
+
+  private PlayerPath(OffHeapGraph store, int[] parents, int[] vertices, int goal, int length) {
+    this.store = store;
+    this.parents = parents;
+    this.vertices = vertices;
+    this.goal = goal;
+    this.length = length;
+  }
+
+  /*
+   * Returns a path backed by its vertices, vertices[0] being the goal and
+   * vertices[length] the source; the array may still be filled in afterwards
+   */
+  static PlayerPath ofVertices(OffHeapGraph store, int[] vertices, int goal, int length) {
+    return new PlayerPath(store, null, vertices, goal, length);
+  }
+
+  /*
+   * Returns the number of games in the chain, i.e. the degree of separation
+   */
+  public int length() {
+    if (length == -1) {
+      int n = 0;
+      for (int v = goal; parents[v] != -1; v = parents[v]) n++;
+      length = n;
+    }
+    return length;
+  }
+
+  /*
+   * Returns the id of the i-th player, counting from the goal player at 0
+   * to the source player at length()
+   */
+  public int vertex(int i) {
+    if (i < 0 || i > length()) {
+      throw new IllegalArgumentException("index " + i + " out of bounds");
+    }
+    if (vertices != null) return vertices[i];
+    int v = goal;
+    for (int j = 0; j < i; j++) v = parents[v];
+    return v;
+  }
+
+  public String name(int i) {
+    return store.name(vertex(i));
+  }
+
+  /*
+   * Returns the id of the player the goal player is connected through,
+   * or -1 if the goal player is the source
+   */
+  public int firstHop() {
+    if (vertices != null) return length == 0 ? -1 : vertices[1];
+    return parents[goal];
+  }
+
+  /*
+   * Returns the ids of the players on the path, from the goal to the source
+   */
+  public Iterable<Integer> vertices() {
+    return new Iterable<Integer>() {
+      public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+          private int v = goal;
+          private int i = 0; // the index of v on the path
+
+          public boolean hasNext() { return v != -1; }
+
+          public Integer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int current = v;
+            i++;
+            if (vertices != null) v = i <= length ? vertices[i] : -1;
+            else                  v = parents[v];
+            return current;
+          }
+        };
+      }
+    };
+  }
+
+  /*
+   * Returns an iterator over the player names, from the goal to the source
+   */
+  public Iterator<String> iterator() {
+    final Iterator<Integer> ids = vertices().iterator();
+    return new Iterator<String>() {
+      public boolean hasNext() { return ids.hasNext(); }
+
+      public String next() {
+        return store.name(ids.next());
+      }
+    };
+  }
+
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for (String name : this) {
+      if (s.length() > 0) s.append(" -> ");
+      s.append(name);
+    }
+    return s.toString();
+  }
+}
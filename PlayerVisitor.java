@@ -0,0 +1,11 @@
+/*
+ * Callback for the neighbourhood queries of MorphyDegree
+ * Players are reported in order of increasing degree from the source player
+ */
+public interface PlayerVisitor {
+  /*
+   * Called once for every player reached by the query
+   * Returning false stops the traversal
+   */
+  boolean visit(String player, int degree);
+}
@@ -0,0 +1,380 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * All-sources separation statistics: the average degree of separation between all
+ * connected pairs of players and the number of players reachable within k hops of
+ * each player
+ *
+ * One breadth-first search is run per source. Sources are processed in blocks spread
+ * over a ForkJoinPool, so idle workers steal blocks from busy ones, and every worker
+ * thread reuses its own distance and queue arrays between searches. The searches read
+ * the offset/neighbour arrays of the OffHeapGraph directly.
+ *
+ * Optionally only a random sample of the sources is searched. The average separation
+ * is then a ratio estimate, reported together with a 95% error bound.
+ *
+ * If a checkpoint file is given, every finished block is appended to it, and a later
+ * run with the same parameters skips the blocks already recorded there.
+ */
+public class SeparationStats {
+  private static final int BLOCK = 256; // sources per task and per checkpoint record
+  private static final int MAGIC = 0x4d445354; // checkpoint file marker, version 2
+  private static final double Z95 = 1.96; // normal quantile of the 95% error bound
+
+  private final int V; // the number of players
+  private final int hops; // the k of the k-hop reachability counts
+  private final double sampleRate; // fraction of the players used as sources
+  private final long seed; // seed of the source sample
+
+  private final OffHeapGraph G;
+
+  private int sources; // the number of sources searched
+  private long pairs; // the number of connected (source, target) pairs found
+  private long totalDistance; // the sum of their distances
+  private double sumSS, sumSC, sumCC; // per-source sums of squares for the error bound
+  private long[] histogram; // histogram[d] = number of pairs at distance d
+  private int[] reach; // reach[v] = players within hops of v, -1 if v was not sampled
+
+  private DataOutputStream checkpoint;
+
+  // per-worker scratch space, allocated once per thread
+  private final ThreadLocal<int[][]> scratch = new ThreadLocal<int[][]>() {
+    protected int[][] initialValue() {
+      int[] dist = new int[V];
+      Arrays.fill(dist, -1);
+      return new int[][] { dist, new int[V] };
+    }
+  };
+
+  // the totals of one block of sources
+  private static class Block {
+    private int index;
+    private int sources;
+    private long pairs;
+    private long totalDistance;
+    private double sumSS, sumSC, sumCC;
+    private long[] histogram = new long[0];
+    private int[] reach;
+  }
+
+  public SeparationStats(OffHeapGraph G, int hops, double sampleRate, long seed, String checkpointFile) {
+    if (hops < 0) {
+      throw new IllegalArgumentException("hops must be non-negative");
+    }
+    if (!(sampleRate > 0 && sampleRate <= 1)) {
+      throw new IllegalArgumentException("sample rate must be in (0, 1]");
+    }
+    this.G = G;
+    this.V = G.V();
+    this.hops = hops;
+    this.sampleRate = sampleRate;
+    this.seed = seed;
+
+    histogram = new long[0];
+    reach = new int[V];
+    Arrays.fill(reach, -1);
+
+    int blocks = (V + BLOCK - 1) / BLOCK;
+    boolean[] done = new boolean[blocks];
+    if (checkpointFile != null) openCheckpoint(new File(checkpointFile), done);
+
+    ForkJoinPool pool = new ForkJoinPool();
+    try {
+      pool.invoke(new Sources(0, blocks, done));
+    } finally {
+      pool.shutdown();
+      if (checkpoint != null) {
+        try {
+          checkpoint.close();
+        } catch (IOException ioe) {
+          throw new IllegalArgumentException("Cannot write checkpoint: " + ioe);
+        }
+      }
+    }
+  }
+
+  // splits a range of blocks until a single block is left
+  private class Sources extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int lo, hi;
+    private final boolean[] done;
+
+    Sources(int lo, int hi, boolean[] done) {
+      this.lo = lo;
+      this.hi = hi;
+      this.done = done;
+    }
+
+    protected void compute() {
+      if (hi - lo == 1) {
+        if (!done[lo]) finish(search(lo));
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new Sources(lo, mid, done), new Sources(mid, hi, done));
+    }
+  }
+
+  /*
+   * Returns whether the given player is one of the sampled sources
+   * The choice depends only on seed and v, so a resumed run samples the same players
+   */
+  private boolean sampled(int v) {
+    if (sampleRate == 1) return true;
+    long z = seed + (v + 1) * 0x9e3779b97f4a7c15L; // SplitMix64
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    z = z ^ (z >>> 31);
+    return (z >>> 11) < (long) (sampleRate * (1L << 53));
+  }
+
+  private Block search(int index) {
+    int[][] space = scratch.get();
+    int[] dist = space[0];
+    int[] queue = space[1];
+
+    Block b = new Block();
+    b.index = index;
+    int lo = index * BLOCK;
+    int hi = Math.min(V, lo + BLOCK);
+    b.reach = new int[hi - lo];
+    Arrays.fill(b.reach, -1);
+
+    for (int s = lo; s < hi; s++) {
+      if (!sampled(s)) continue;
+
+      int head = 0, tail = 0;
+      dist[s] = 0;
+      queue[tail++] = s;
+      while (head < tail) {
+        int v = queue[head++];
+        for (int i = G.first(v); i < G.first(v + 1); i++) {
+          int w = G.target(i);
+          if (dist[w] == -1) {
+            dist[w] = dist[v] + 1;
+            queue[tail++] = w;
+          }
+        }
+      }
+
+      // the queue holds the reached vertices in order of distance
+      long sum = 0;
+      int within = 0;
+      for (int i = 1; i < tail; i++) {
+        int d = dist[queue[i]];
+        sum += d;
+        if (d <= hops) within++;
+        if (d >= b.histogram.length) b.histogram = Arrays.copyOf(b.histogram, Math.max(2 * b.histogram.length, d + 1));
+        b.histogram[d]++;
+      }
+      for (int i = 0; i < tail; i++) dist[queue[i]] = -1;
+
+      double c = tail - 1;
+      b.sources++;
+      b.pairs += tail - 1;
+      b.totalDistance += sum;
+      b.sumSS += (double) sum * sum;
+      b.sumSC += sum * c;
+      b.sumCC += c * c;
+      b.reach[s - lo] = within;
+    }
+    return b;
+  }
+
+  private synchronized void finish(Block b) {
+    merge(b);
+    if (checkpoint != null) {
+      try {
+        writeBlock(checkpoint, b);
+        checkpoint.flush();
+      } catch (IOException ioe) {
+        throw new IllegalArgumentException("Cannot write checkpoint: " + ioe);
+      }
+    }
+  }
+
+  private void merge(Block b) {
+    sources += b.sources;
+    pairs += b.pairs;
+    totalDistance += b.totalDistance;
+    sumSS += b.sumSS;
+    sumSC += b.sumSC;
+    sumCC += b.sumCC;
+    if (b.histogram.length > histogram.length) histogram = Arrays.copyOf(histogram, b.histogram.length);
+    for (int d = 0; d < b.histogram.length; d++) histogram[d] += b.histogram[d];
+    System.arraycopy(b.reach, 0, reach, b.index * BLOCK, b.reach.length);
+  }
+
+  /*
+   * Loads the blocks recorded in an existing checkpoint, drops a partially written
+   * last record and opens the file for appending
+   */
+  private void openCheckpoint(File file, boolean[] done) {
+    try {
+      long valid = 0;
+      if (file.exists() && file.length() > 0) {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+          if (in.readInt() != MAGIC || in.readInt() != V || in.readInt() != G.E()
+              || in.readLong() != checksum() || in.readInt() != hops
+              || in.readDouble() != sampleRate || in.readLong() != seed || in.readInt() != BLOCK) {
+            throw new IllegalArgumentException("Checkpoint " + file + " was written for a different job");
+          }
+          valid = headerSize();
+          while (true) {
+            Block b = readBlock(in);
+            if (b.index < 0 || b.index >= done.length || done[b.index]) {
+              throw new IllegalArgumentException("Checkpoint " + file + " is corrupt");
+            }
+            done[b.index] = true;
+            merge(b);
+            valid += blockSize(b);
+          }
+        } catch (EOFException eof) {
+          // a crash may leave the last record incomplete
+        } finally {
+          in.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(valid);
+        raf.close();
+      }
+
+      checkpoint = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, valid > 0)));
+      if (valid == 0) {
+        checkpoint.writeInt(MAGIC);
+        checkpoint.writeInt(V);
+        checkpoint.writeInt(G.E());
+        checkpoint.writeLong(checksum());
+        checkpoint.writeInt(hops);
+        checkpoint.writeDouble(sampleRate);
+        checkpoint.writeLong(seed);
+        checkpoint.writeInt(BLOCK);
+        checkpoint.flush();
+      }
+    } catch (IOException ioe) {
+      throw new IllegalArgumentException("Cannot open checkpoint: " + ioe);
+    }
+  }
+
+  private static long headerSize() {
+    return 4 + 4 + 4 + 8 + 4 + 8 + 8 + 4;
+  }
+
+  /*
+   * Returns a hash of the adjacency lists, so that a checkpoint of another database
+   * with the same number of players and games is not resumed by mistake
+   */
+  private long checksum() {
+    long h = 0xcbf29ce484222325L; // FNV-1a
+    for (int v = 0; v <= V; v++) h = (h ^ G.first(v)) * 0x100000001b3L;
+    for (int i = 0; i < G.first(V); i++) h = (h ^ G.target(i)) * 0x100000001b3L;
+    return h;
+  }
+
+  private static long blockSize(Block b) {
+    return 4 + 4 + 8 + 8 + 3 * 8 + 4 + 8L * b.histogram.length + 4 + 4L * b.reach.length;
+  }
+
+  private static void writeBlock(DataOutputStream out, Block b) throws IOException {
+    out.writeInt(b.index);
+    out.writeInt(b.sources);
+    out.writeLong(b.pairs);
+    out.writeLong(b.totalDistance);
+    out.writeDouble(b.sumSS);
+    out.writeDouble(b.sumSC);
+    out.writeDouble(b.sumCC);
+    out.writeInt(b.histogram.length);
+    for (long h : b.histogram) out.writeLong(h);
+    out.writeInt(b.reach.length);
+    for (int r : b.reach) out.writeInt(r);
+  }
+
+  private static Block readBlock(DataInputStream in) throws IOException {
+    Block b = new Block();
+    b.index = in.readInt();
+    b.sources = in.readInt();
+    b.pairs = in.readLong();
+    b.totalDistance = in.readLong();
+    b.sumSS = in.readDouble();
+    b.sumSC = in.readDouble();
+    b.sumCC = in.readDouble();
+    b.histogram = new long[in.readInt()];
+    for (int d = 0; d < b.histogram.length; d++) b.histogram[d] = in.readLong();
+    b.reach = new int[in.readInt()];
+    for (int i = 0; i < b.reach.length; i++) b.reach[i] = in.readInt();
+    return b;
+  }
+
+  /*
+   * Returns the average degree of separation over all connected pairs of players
+   */
+  public double averageSeparation() {
+    if (pairs == 0) return 0;
+    return (double) totalDistance / pairs;
+  }
+
+  /*
+   * Returns the half-width of the 95% confidence interval of averageSeparation()
+   * The bound is 0 when every player was used as a source
+   */
+  public double errorBound() {
+    if (sources == V || sources < 2 || pairs == 0) return 0;
+    double r = averageSeparation();
+    double meanC = (double) pairs / sources;
+    double residuals = sumSS - 2 * r * sumSC + r * r * sumCC;
+    double variance = (1 - (double) sources / V) * Math.max(residuals, 0) / ((double) sources * (sources - 1));
+    return Z95 * Math.sqrt(variance) / meanC;
+  }
+
+  /*
+   * Returns the number of players within hops of the given player,
+   * or -1 if the player was not one of the sampled sources
+   */
+  public int reachable(int v) {
+    if (v < 0 || v >= V) {
+      throw new IllegalArgumentException("vertex " + v + " out of bounds");
+    }
+    return reach[v];
+  }
+
+  /*
+   * Returns the number of (source, target) pairs found at the given distance
+   */
+  public long pairsAt(int distance) {
+    if (distance < 0 || distance >= histogram.length) return 0;
+    return histogram[distance];
+  }
+
+  public int maxDistance() {
+    for (int d = histogram.length - 1; d > 0; d--) {
+      if (histogram[d] > 0) return d;
+    }
+    return 0;
+  }
+
+  public int sources() {
+    return sources;
+  }
+
+  public long pairs() {
+    return pairs;
+  }
+
+  public int hops() {
+    return hops;
+  }
+}